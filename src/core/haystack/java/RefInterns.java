@@ -0,0 +1,98 @@
+//
+// Copyright (c) 2026, SkyFoundry LLC
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   19 Oct 2026  Creation
+//
+
+package fan.haystack;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import fan.sys.*;
+import fan.xeto.Ref;
+
+/**
+ * RefInterns is a concurrent map of id to weakly referenced Ref.
+ * Cleared entries are purged from the reference queue on each intern.
+ */
+public final class RefInterns extends FanObj
+{
+
+//////////////////////////////////////////////////////////////////////////
+// Fantom API
+//////////////////////////////////////////////////////////////////////////
+
+  public final Type typeof() { return typeof; }
+
+  public static Type typeof$() { return typeof; }
+  private static final Type typeof = Type.find("haystack::RefInterns");
+
+  public static RefInterns make() { return new RefInterns(); }
+
+  public Ref intern(String id)
+  {
+    purge();
+    Entry e = map.get(id);
+    if (e != null)
+    {
+      Ref ref = e.get();
+      if (ref != null) return ref;
+    }
+
+    Ref ref = Ref.makeImpl(id, null);
+    Entry entry = new Entry(id, ref, queue);
+    while (true)
+    {
+      Entry old = map.putIfAbsent(id, entry);
+      if (old == null) return ref;
+
+      // another thread won the race or the old entry was cleared
+      Ref cur = old.get();
+      if (cur != null) return cur;
+      if (map.replace(id, old, entry)) return ref;
+    }
+  }
+
+  public Ref get(String id)
+  {
+    Entry e = map.get(id);
+    return e == null ? null : e.get();
+  }
+
+  public long size()
+  {
+    purge();
+    return map.size();
+  }
+
+  private void purge()
+  {
+    Entry e;
+    while ((e = (Entry)queue.poll()) != null) map.remove(e.id, e);
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Entry
+//////////////////////////////////////////////////////////////////////////
+
+  static final class Entry extends WeakReference<Ref>
+  {
+    Entry(String id, Ref ref, ReferenceQueue<Ref> queue)
+    {
+      super(ref, queue);
+      this.id = id;
+    }
+
+    final String id;
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////////////////
+
+  private final ConcurrentHashMap<String,Entry> map = new ConcurrentHashMap<>();
+  private final ReferenceQueue<Ref> queue = new ReferenceQueue<>();
+}
@@ -164,6 +164,15 @@ public final class BackupMonitor extends FanObj
   private void snapshotIndex() throws Exception
   {
     this.blobs = store.index.snapshot();
+
+    // read extent tables; safe outside the index lock since
+    // our GC freeze prevents the old pages from being reused
+    for (int i=0; i<blobs.length; ++i)
+    {
+      Blob b = blobs[i];
+      if (b != null && b.isActive() && b.isExtents())
+        b.extents = Extents.read(store.pages, b.fileId, b.pageId);
+    }
   }
 
   private void initProgressTotal()
@@ -185,13 +194,16 @@ public final class BackupMonitor extends FanObj
 
   private void writePageFiles() throws Exception
   {
+    // data and extent pages first, then extent tables once
+    // all the extents have been assigned their new locations
+    for (int pageSize = Store.minPageSize; pageSize <= Store.maxPageSize; pageSize <<= 1)
+      writePageFiles(pageSize, false);
     for (int pageSize = Store.minPageSize; pageSize <= Store.maxPageSize; pageSize <<= 1)
-      writePageFiles(pageSize);
+      writePageFiles(pageSize, true);
   }
 
-  private void writePageFiles(int pageSize) throws Exception
+  private void writePageFiles(int pageSize, boolean tables) throws Exception
   {
-    int curPageId = -1;
     PageMgr pages = store.pages;
 
     // size bounds for this page size
@@ -201,47 +213,83 @@ public final class BackupMonitor extends FanObj
     // iterate blobs looking for pages within this page size
     for (int i=0; i<blobs.length; ++i)
     {
-      // check if blob matches page size
       Blob b = blobs[i];
       if (b == null) continue;
-      if (b.size < min || b.size > max) continue;
 
-      // allocate and open a new page file if necessary
-      if (curPageId == -1)
+      // extent blobs
+      if (b.extents != null)
       {
-        curFileId++;
-        String dir  = PageMgr.toFileDir(curFileId, pageSize);
-        String name = PageMgr.toFileName(curFileId, pageSize);
-        startEntry(dir+"/"+name);
+        int[] ext = b.extents;
+        if (tables)
+        {
+          byte[] table = Extents.encode(ext);
+          if (table.length < min || table.length > max) continue;
+          long loc = writePage(table, table.length, pageSize);
+          b.fileId = IO.hi4(loc);
+          b.pageId = IO.lo4(loc);
+          advanceProgress("rec");
+        }
+        else
+        {
+          for (int j=0; j<ext.length; j+=3)
+          {
+            if (ext[j+2] < min || ext[j+2] > max) continue;
+            pages.file(ext[j]).read(ext[j+1], buf, 0, ext[j+2]);
+            long loc = writePage(buf, ext[j+2], pageSize);
+            ext[j]   = IO.hi4(loc);
+            ext[j+1] = IO.lo4(loc);
+          }
+        }
+        continue;
       }
 
-      // allocate next page id within this page
-      curPageId++;
+      // check if blob matches page size
+      if (tables) continue;
+      if (b.size < min || b.size > max) continue;
 
       // read from source page file
       pages.file(b.fileId).read(b.pageId, buf, 0, b.size);
 
-      // write to zip page file, plus trailing zero bytes
-      zip.write(buf, 0, b.size);
-      zip.write(zeros, 0, pageSize - b.size);
-
-      // update blob snapshot copy index pointers
-      b.fileId = curFileId;
-      b.pageId = curPageId;
+      // write to zip page file and update blob snapshot copy index pointers
+      long loc = writePage(buf, b.size, pageSize);
+      b.fileId = IO.hi4(loc);
+      b.pageId = IO.lo4(loc);
 
       // update progress percentage
       advanceProgress("rec");
-
-      // check if we need to close out this page file
-      if (curPageId >= Store.pagesPerFile-1)
-      {
-        closeEntry();
-        curPageId = -1;
-      }
     }
 
     // close current entry if we have one open
-    if (curPageId != -1) closeEntry();
+    if (curPageId != -1) { closeEntry(); curPageId = -1; }
+  }
+
+  /** Write page to current zip page file and return its new fileId/pageId */
+  private long writePage(byte[] data, int size, int pageSize) throws Exception
+  {
+    // allocate and open a new page file if necessary
+    if (curPageId == -1)
+    {
+      curFileId++;
+      String dir  = PageMgr.toFileDir(curFileId, pageSize);
+      String name = PageMgr.toFileName(curFileId, pageSize);
+      startEntry(dir+"/"+name);
+    }
+
+    // allocate next page id within this page
+    curPageId++;
+    long loc = IO.join(curFileId, curPageId);
+
+    // write to zip page file, plus trailing zero bytes
+    zip.write(data, 0, size);
+    zip.write(zeros, 0, pageSize - size);
+
+    // check if we need to close out this page file
+    if (curPageId >= Store.pagesPerFile-1)
+    {
+      closeEntry();
+      curPageId = -1;
+    }
+    return loc;
   }
 
   private void writeIndex() throws Exception
@@ -328,6 +376,7 @@ public final class BackupMonitor extends FanObj
 
   // The folio "files/" subdir holds rec file contents. Unlike aux files this
   // is a directory tree, so we walk it recursively and collect each leaf file.
+  // Rec files are not yet extent blobs (see "Extents" follow-up in design.txt).
   // The zip path is computed at write time from the file's location relative
   // to store.dir (which always begins with the "files/" prefix).
   private void findRecFiles() throws Exception
@@ -451,6 +500,7 @@ public final class BackupMonitor extends FanObj
   ZipOutputStream zip;       // openFile
   Blob[] blobs;              // snapshotIndex
   int curFileId = -1;        // writePageFiles
+  int curPageId = -1;        // writePageFiles
   int progressTotal;         // snapshotIndex (approx only for progress)
   int progressWritten;       // writePageFiles (num blob pages written)
   Func onComplete;           // callback
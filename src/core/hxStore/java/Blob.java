@@ -9,6 +9,7 @@
 package fan.hxStore;
 
 import java.io.IOException;
+import java.util.zip.CRC32C;
 import fan.sys.*;
 
 /**
@@ -94,12 +95,27 @@ public final class Blob extends FanObj
     checkRead();
     try
     {
-      // get raw byte[] data and ensure capacity
+      // get raw byte[] data and ensure capacity; we overwrite the
+      // entire contents so don't let MemBuf copy its old bytes on growth
       MemBuf b = (MemBuf)buf;
-      if (b.capacity() < size) b.capacity(size);
+      if (b.buf.length < size) b.buf = new byte[growCapacity(b.buf.length, size)];
 
-      // read data page
-      store.pages.file(fileId).read(pageId, b.buf, 0, size);
+      // read data page or each extent page in order
+      if (isExtents())
+      {
+        int[] ext = readExtents();
+        int offset = 0;
+        for (int i=0; i<ext.length; i+=3)
+        {
+          store.pages.file(ext[i]).read(ext[i+1], b.buf, offset, ext[i+2]);
+          offset += ext[i+2];
+        }
+      }
+      else
+      {
+        store.pages.file(fileId).read(pageId, b.buf, 0, size);
+      }
+      if (store.verifyChecksums) verifyCrc(b.buf, 0, size);
 
       // reset buf pos/size
       b.pos = 0;
@@ -112,6 +128,30 @@ public final class Blob extends FanObj
     }
   }
 
+  public InStream in()
+  {
+    // size our read buffer to the blob so small blobs don't pay for 64KB
+    BlobInputStream in = new BlobInputStream(this);
+    long bufSize = Math.min(Math.max(in.size, 16L), maxInBufSize);
+    return SysInStream.make(in, Long.valueOf(bufSize));
+  }
+
+  /** Round up to power of two (capped at max blob size) */
+  static int growCapacity(int cur, int size)
+  {
+    int cap = Math.max(cur, 16);
+    while (cap < size && cap > 0) cap <<= 1;
+    return cap > 0 ? cap : size;
+  }
+
+  public OutStream out() { return out(null); }
+  public OutStream out(Buf meta)
+  {
+    synchronized (this) { checkWrite(); }
+    if (meta != null) Store.checkMetaSize(meta);
+    return SysOutStream.make(new BlobOutputStream(this, meta), null);
+  }
+
   public synchronized void write(Buf meta, Buf data)
   {
     checkWrite();
@@ -120,9 +160,8 @@ public final class Blob extends FanObj
 
   public synchronized void write(Buf meta, Buf data, long expectedVer)
   {
-    // this.ver is mutated holding the Index lock, but for both
-    // write/append we also have the Blob lock, so we can just
-    // check first thing here
+    // this.ver is mutated holding the Blob lock, so we can
+    // just check first thing here
     if (expectedVer > 0 && this.ver != expectedVer)
       throw ConcurrentWriteErr.make("Current ver: " + this.ver + " != " + expectedVer);
 
@@ -137,15 +176,20 @@ public final class Blob extends FanObj
     {
       int oldFileId = this.fileId;
       int oldPageId = this.pageId;
+      int[] oldExtents = data != null && isExtents() ? readExtents() : null;
       BlobMeta newMeta = this.meta;
       int newSize = this.size;
       int newFileId = oldFileId;
       int newPageId = oldPageId;
+      int newCrc = this.crc;
+      int newFlags = this.flags;
 
       // write data page
       if (data != null)
       {
         newSize = data.sz();
+        newCrc = IO.crc(data.unsafeArray(), data.unsafeOffset(), newSize);
+        newFlags = flagCrc;
         long loc = store.pages.alloc(newSize);
         newFileId = IO.hi4(loc);
         newPageId = IO.lo4(loc);
@@ -160,12 +204,12 @@ public final class Blob extends FanObj
       }
 
       // update my indexing fields and index file entry
-      store.index.write(this, newMeta, newSize, newFileId, newPageId, newVer);
+      store.index.write(this, newMeta, newSize, newFileId, newPageId, newCrc, newFlags, newVer);
 
       // free old data page
       if (data != null && oldFileId >= 0)
       {
-        store.pages.free(oldFileId, oldPageId);
+        freePages(oldFileId, oldPageId, oldExtents);
       }
     }
     catch (IOException e)
@@ -174,8 +218,67 @@ public final class Blob extends FanObj
     }
   }
 
+  /**
+   * Commit the pages written by BlobOutputStream as a chain of extents.
+   * The extent pages have already been allocated and written, so we only
+   * need to write the extent table page and update the index.
+   */
+  synchronized void writeExtents(BlobMeta newMeta, int[] ext, long newSize, int newCrc)
+  {
+    checkWrite();
+    if (newSize > Store.maxBlobSize) throw Store.err("Data size exceeds limit: " + newSize + " > 2GB");
+    try
+    {
+      int oldFileId = this.fileId;
+      int oldPageId = this.pageId;
+      int[] oldExtents = isExtents() ? readExtents() : null;
+      if (newMeta == null) newMeta = this.meta;
+
+      // write extent table and update index
+      commitExtents(newMeta, ext, newSize, newCrc);
+
+      // free old data page(s)
+      if (oldFileId >= 0) freePages(oldFileId, oldPageId, oldExtents);
+    }
+    catch (IOException e)
+    {
+      throw store.errWrite(e);
+    }
+  }
+
+  /** Write new extent table page and update my index entry */
+  private void commitExtents(BlobMeta newMeta, int[] ext, long newSize, int newCrc) throws IOException
+  {
+    byte[] table = Extents.encode(ext);
+    long loc = store.pages.alloc(table.length);
+    int newFileId = IO.hi4(loc);
+    int newPageId = IO.lo4(loc);
+    if (store.testDiskFull) throw new IOException("Disk full test");
+    store.pages.file(newFileId).write(newPageId, table, 0, table.length);
+    store.index.write(this, newMeta, (int)newSize, newFileId, newPageId, newCrc, flagCrc | flagExtents, -1L);
+  }
+
   public synchronized void append(Buf meta, Buf data)
   {
+    // extent blobs append to their tail extent
+    if (isExtents())
+    {
+      checkWrite();
+      if (meta != null) Store.checkMetaSize(meta);
+      appendExtents(meta, (MemBuf)data, null);
+      return;
+    }
+
+    // if this append takes us past the max page size then our
+    // data page becomes the first extent of a new chain
+    if ((long)this.size + data.sz() > Store.maxPageSize)
+    {
+      checkWrite();
+      if (meta != null) Store.checkMetaSize(meta);
+      appendExtents(meta, (MemBuf)data, new int[] { fileId, pageId, size });
+      return;
+    }
+
     // if this append forces us to a larger page size
     // then we need to rewrite the entire page
     int newSize = this.size + data.sz();
@@ -194,9 +297,24 @@ public final class Blob extends FanObj
     Store.checkDataSize(newSize);
     try
     {
-      // append data into existing page block
+      // continue the checksum from our stored crc of the existing data,
+      // so that we only checksum the appended bytes
       MemBuf d = (MemBuf)data;
       int offset = this.size;
+      int newCrc;
+      if ((flags & flagCrc) != 0)
+      {
+        newCrc = IO.crcCombine(this.crc, IO.crc(d.buf, 0, d.size), d.size);
+      }
+      else
+      {
+        byte[] old = new byte[newSize];
+        store.pages.file(fileId).read(pageId, old, 0, offset);
+        System.arraycopy(d.buf, 0, old, offset, d.size);
+        newCrc = IO.crc(old, 0, newSize);
+      }
+
+      // append data into existing page block
       if (store.testDiskFull) throw new IOException("Disk full test");
       store.pages.file(fileId).append(pageId, offset, d.buf, d.size);
 
@@ -208,12 +326,132 @@ public final class Blob extends FanObj
       }
 
       // update my indexing fields and index file entry
-      store.index.write(this, newMeta, newSize, this.fileId, this.pageId, -1L);
+      store.index.write(this, newMeta, newSize, this.fileId, this.pageId, newCrc, flagCrc, -1L);
+    }
+    catch (IOException e)
+    {
+      throw store.errWrite(e);
+    }
+  }
+
+  /**
+   * Append to an extent chain without touching any extent but the tail.
+   * Data which fits into the free space of the tail's page is written in
+   * place.  Otherwise a tail which can grow to hold the data is merged
+   * with it into a new page, else we fill the tail's page in place and
+   * write the rest to new extent pages.  If page is non-null then this
+   * blob is a single data page which becomes the first extent as-is.
+   */
+  private void appendExtents(Buf meta, MemBuf d, int[] page)
+  {
+    long newSize = (long)this.size + d.size;
+    if (newSize > Store.maxBlobSize) throw Store.err("Data size exceeds limit: " + newSize + " > 2GB");
+    int[] ext = null;
+    int first = 0;  // index of first newly allocated extent
+    try
+    {
+      int oldFileId = this.fileId;
+      int oldPageId = this.pageId;
+      ext = page != null ? page : readExtents();
+
+      // pages written before 4.0 have no stored crc to continue from
+      int oldCrc = (flags & flagCrc) != 0 ? this.crc : computeCrc(new byte[this.size]);
+
+      int t = ext.length - 3;
+      int tailFileId = ext[t];
+      int tailPageId = ext[t+1];
+      int tailSize   = ext[t+2];
+      PageMgr.PageFile tailFile = store.pages.file(tailFileId);
+      int room = tailFile.pageSize - tailSize;
+      boolean moveTail = false;
+
+      if (d.size <= room)
+      {
+        // fits into tail page in place
+        if (store.testDiskFull) throw new IOException("Disk full test");
+        tailFile.append(tailPageId, tailSize, d.buf, 0, d.size);
+        ext[t+2] = tailSize + d.size;
+        first = ext.length;
+      }
+      else if (tailSize + d.size <= Store.maxPageSize)
+      {
+        // merge tail and data into a larger page
+        byte[] merged = new byte[tailSize + d.size];
+        tailFile.read(tailPageId, merged, 0, tailSize);
+        System.arraycopy(d.buf, 0, merged, tailSize, d.size);
+        first = t;
+        ext = newExtents(ext, first, merged.length);
+        writeExtentPages(ext, first, merged, 0);
+        moveTail = true;
+      }
+      else
+      {
+        // fill tail page in place, then spill rest into new pages
+        if (store.testDiskFull) throw new IOException("Disk full test");
+        if (room > 0) tailFile.append(tailPageId, tailSize, d.buf, 0, room);
+        ext[t+2] = tailSize + room;
+        first = ext.length;
+        ext = newExtents(ext, first, d.size - room);
+        writeExtentPages(ext, first, d.buf, room);
+      }
+
+      // continue checksum from old crc
+      int newCrc = IO.crcCombine(oldCrc, IO.crc(d.buf, 0, d.size), d.size);
+      BlobMeta newMeta = meta == null ? this.meta : BlobMeta.fromBuf(meta);
+      commitExtents(newMeta, ext, newSize, newCrc);
+      first = ext.length;
+
+      // free old table (if not our old data page) and the tail if it was moved
+      if (page == null) store.pages.free(oldFileId, oldPageId);
+      if (moveTail) store.pages.free(tailFileId, tailPageId);
     }
     catch (IOException e)
     {
+      freeExtents(ext, first);
       throw store.errWrite(e);
     }
+    catch (RuntimeException e)
+    {
+      freeExtents(ext, first);
+      throw e;
+    }
+  }
+
+  /** Copy first n ints of extents and add unallocated extents for len bytes */
+  private static int[] newExtents(int[] ext, int n, int len)
+  {
+    int num = (len + Store.maxPageSize - 1) / Store.maxPageSize;
+    int[] acc = new int[n + num * 3];
+    System.arraycopy(ext, 0, acc, 0, n);
+    for (int i=n; i<acc.length; i+=3)
+    {
+      acc[i] = -1;
+      acc[i+2] = Math.min(len, Store.maxPageSize);
+      len -= acc[i+2];
+    }
+    return acc;
+  }
+
+  /** Allocate and write pages for unallocated extents from index i on */
+  private void writeExtentPages(int[] ext, int i, byte[] buf, int off) throws IOException
+  {
+    for (; i<ext.length; i+=3)
+    {
+      long loc = store.pages.alloc(ext[i+2]);
+      ext[i]   = IO.hi4(loc);
+      ext[i+1] = IO.lo4(loc);
+      if (store.testDiskFull) throw new IOException("Disk full test");
+      store.pages.file(ext[i]).write(ext[i+1], buf, off, ext[i+2]);
+      off += ext[i+2];
+    }
+  }
+
+  /** Free allocated extent pages from index i on */
+  private void freeExtents(int[] ext, int i)
+  {
+    if (ext == null) return;
+    for (; i<ext.length; i+=3)
+      if (ext[i] >= 0) store.pages.free(ext[i], ext[i+1]);
   }
 
   public synchronized void delete()
@@ -228,12 +466,13 @@ public final class Blob extends FanObj
     {
       int oldFileId = this.fileId;
       int oldPageId = this.pageId;
+      int[] oldExtents = isExtents() ? readExtents() : null;
 
       // zero out my indexing fields and disk entry
       store.index.delete(this, newVer);
 
       // free page
-      store.pages.free(oldFileId, oldPageId);
+      freePages(oldFileId, oldPageId, oldExtents);
     }
     catch (IOException e)
     {
@@ -241,13 +480,64 @@ public final class Blob extends FanObj
     }
   }
 
-  private void checkRead()
+  private void freePages(int oldFileId, int oldPageId, int[] oldExtents)
+  {
+    store.pages.free(oldFileId, oldPageId);
+    if (oldExtents == null) return;
+    for (int i=0; i<oldExtents.length; i+=3)
+      store.pages.free(oldExtents[i], oldExtents[i+1]);
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Extents (must be holding Blob lock)
+//////////////////////////////////////////////////////////////////////////
+
+  /** Is this blob's data stored as chain of extents */
+  boolean isExtents() { return (flags & flagExtents) != 0; }
+
+  /** Read extent table as fileId/pageId/size triples */
+  int[] readExtents() throws IOException
+  {
+    return Extents.read(store.pages, fileId, pageId);
+  }
+
+  /** Compute checksum by reading all data into the given scratch buffer */
+  int computeCrc(byte[] scratch) throws IOException
+  {
+    if (!isExtents())
+    {
+      store.pages.file(fileId).read(pageId, scratch, 0, size);
+      return IO.crc(scratch, 0, size);
+    }
+
+    CRC32C crc = new CRC32C();
+    int[] ext = readExtents();
+    for (int i=0; i<ext.length; i+=3)
+    {
+      store.pages.file(ext[i]).read(ext[i+1], scratch, 0, ext[i+2]);
+      crc.update(scratch, 0, ext[i+2]);
+    }
+    return (int)crc.getValue();
+  }
+
+  void verifyCrc(byte[] buf, int offset, int size)
+  {
+    if ((flags & flagCrc) == 0) return;
+    if (IO.crc(buf, offset, size) != crc) throw crcErr();
+  }
+
+  Err crcErr()
+  {
+    return BlobChecksumErr.make("Blob checksum mismatch: " + this + " [" + locToStr() + "]");
+  }
+
+  void checkRead()
   {
     if (fileId < 0 && ver >= 0) throw Store.err("Blob is deleted");
     store.checkRead();
   }
 
-  private void checkWrite()
+  void checkWrite()
   {
     if (fileId < 0 && ver >= 0) throw Store.err("Blob is deleted");
     store.checkWrite();
@@ -257,7 +547,7 @@ public final class Blob extends FanObj
 // Indexing (must be holding Index lock)
 //////////////////////////////////////////////////////////////////////////
 
-  static Blob indexDecode(Store store, int index, byte[] buf)
+  static Blob indexDecode(Store store, int index, byte[] buf, int entrySize)
   {
     int handleHi  = IO.read4(buf, 0);
     int metaSize  = IO.read1(buf, 5);
@@ -274,7 +564,15 @@ public final class Blob extends FanObj
     }
 
     long handle = IO.join(handleHi, index);
-    return new Blob(store, handle, meta, ver, size, fileId, pageId);
+    Blob blob = new Blob(store, handle, meta, ver, size, fileId, pageId);
+
+    // checksum added in 4.0 index format
+    if (entrySize >= Store.indexEntrySize)
+    {
+      blob.flags = IO.read1(buf, 4);
+      blob.crc   = IO.read4(buf, 56);
+    }
+    return blob;
   }
 
   byte[] indexEncode(byte[] buf) throws IOException
@@ -282,36 +580,46 @@ public final class Blob extends FanObj
     if (isDeleted())
     {
       IO.write4(buf,  0, 0);
+      IO.write1(buf,  4, 0);
       IO.write1(buf,  5, 0);
       IO.writeZ(buf,  6, 32);
       IO.write8(buf, 38, ver);
       IO.write4(buf, 46, 0);
       IO.write4(buf, 50, 0);
       IO.write2(buf, 54, 0);
+      IO.write4(buf, 56, 0);
+      IO.write4(buf, 60, 0);
     }
     else
     {
       IO.write4(buf,  0, IO.hi4(handle));
+      IO.write1(buf,  4, flags);
       IO.write1(buf,  5, meta.buf.length);
       IO.writeN(buf,  6, meta.buf, meta.buf.length);
+      IO.writeZ(buf,  6 + meta.buf.length, 32 - meta.buf.length);
       IO.write8(buf, 38, ver);
       IO.write4(buf, 46, size);
       IO.write4(buf, 50, fileId);
       IO.write2(buf, 54, pageId);
+      IO.write4(buf, 56, crc);
+      IO.write4(buf, 60, 0);
     }
     return buf;
   }
 
   Blob snapshot()
   {
-    return new Blob(null, handle, meta, ver, size, fileId, pageId);
+    Blob copy = new Blob(null, handle, meta, ver, size, fileId, pageId);
+    copy.flags = flags;
+    copy.crc   = crc;
+    return copy;
   }
 
 //////////////////////////////////////////////////////////////////////////
 // Fields
 //////////////////////////////////////////////////////////////////////////
 
-  // All fields must be mutated within Index lock
+  // All fields must be mutated within Blob lock
 
   final Store store;    // associated store
   final long handle;    // unique identifier
@@ -320,6 +628,13 @@ public final class Blob extends FanObj
   int size;             // size of data page in bytes
   int fileId;           // data page fileId
   int pageId;           // data page pageId
+  int flags;            // index entry flags
+  int crc;              // CRC32C of data if flagCrc set
+  int[] extents;        // extent triples for backup snapshots only
   Object stash;         // application data
+
+  static final int flagCrc       = 0x01;  // crc field is valid
+  static final int flagExtents   = 0x02;  // data page is an extent table
+  static final long maxInBufSize = 65536L;  // max buffer size for in()
 }
 
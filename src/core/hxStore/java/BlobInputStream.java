@@ -0,0 +1,98 @@
+//
+// Copyright (c) 2026, SkyFoundry LLC
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   19 Oct 2026  Creation
+//
+
+package fan.hxStore;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32C;
+import fan.sys.*;
+
+/**
+ * BlobInputStream streams a blob's data directly from its data page or
+ * extent pages without materializing the whole blob in memory.  We capture
+ * the blob version when the stream is opened and each read is done holding
+ * the Blob lock; if the blob is modified then its old pages may have been
+ * reused so we raise ConcurrentWriteErr.
+ */
+final class BlobInputStream extends InputStream
+{
+  BlobInputStream(Blob blob)
+  {
+    synchronized (blob)
+    {
+      blob.checkRead();
+      try
+      {
+        this.blob    = blob;
+        this.ver     = blob.ver;
+        this.size    = blob.size;
+        this.extents = blob.isExtents() ? blob.readExtents() : new int[] { blob.fileId, blob.pageId, blob.size };
+        this.crc     = blob.store.verifyChecksums && (blob.flags & Blob.flagCrc) != 0 ? new CRC32C() : null;
+      }
+      catch (IOException e)
+      {
+        throw Store.err(e);
+      }
+    }
+  }
+
+  public int read() throws IOException
+  {
+    int n = read(one, 0, 1);
+    return n < 0 ? -1 : one[0] & 0xFF;
+  }
+
+  public int read(byte[] buf, int off, int len) throws IOException
+  {
+    if (len == 0) return 0;
+
+    // skip exhausted (or empty) extents
+    while (extIndex < extents.length && extPos >= extents[extIndex+2])
+    {
+      extIndex += 3;
+      extPos = 0;
+    }
+    if (extIndex >= extents.length) { checkCrc(); return -1; }
+
+    // read as much as we can from current extent
+    int n = Math.min(len, extents[extIndex+2] - extPos);
+    synchronized (blob)
+    {
+      if (blob.ver != ver) throw ConcurrentWriteErr.make("Blob modified during read: " + blob);
+      blob.store.pages.file(extents[extIndex]).read(extents[extIndex+1], extPos, buf, off, n);
+    }
+    if (crc != null) crc.update(buf, off, n);
+    extPos += n;
+    pos += n;
+    return n;
+  }
+
+  public int available()
+  {
+    return (int)Math.min(Integer.MAX_VALUE, size - pos);
+  }
+
+  private void checkCrc()
+  {
+    if (crc == null) return;
+    int actual = (int)crc.getValue();
+    crc = null;
+    if (actual != blob.crc) throw blob.crcErr();
+  }
+
+  private final Blob blob;
+  private final long ver;
+  final long size;
+  private final int[] extents;
+  private final byte[] one = new byte[1];
+  private CRC32C crc;
+  private int extIndex;
+  private int extPos;
+  private long pos;
+}
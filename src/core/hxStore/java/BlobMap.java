@@ -13,7 +13,17 @@ import fan.sys.Func;
 
 /**
  * BlobMap stores in the in-memory index of Blobs which are
- * indexed to an array by the low 4 bytes of the handle
+ * indexed to an array by the low 4 bytes of the handle.
+ *
+ * Free slots are tracked with a hierarchy of bitmaps: level zero has
+ * one bit per slot which is set if the slot holds an active blob, and
+ * each higher level has one bit per word of the level below which is
+ * set if that word is full.  The top level is a single word, so we can
+ * always find the lowest free slot in log64(n) steps.
+ *
+ * The high 4 bytes of each handle come from a Weyl sequence passed thru
+ * a bijective mixer, so we never repeat a value within 2^32 creates and
+ * never block on the entropy source after the initial seed.
  */
 final class BlobMap
 {
@@ -31,6 +41,8 @@ final class BlobMap
     this.max = max;
     this.array = new Blob[n];
     this.cursor = 0;
+    this.varSeq = new SecureRandom().nextInt();
+    rebuildBits(null, 0);
   }
 
   final int size() { return size; }
@@ -102,9 +114,19 @@ final class BlobMap
     }
   }
 
-  final long allocHandle()  // must be used with 'set'
+  final long allocHandle()  // must be used with 'set' or 'release'
   {
-    return IO.join(allocHandleVar(), allocHandleIndex());
+    // reserve the slot so concurrent creates don't get the same index
+    int index = allocHandleIndex();
+    markUsed(index);
+    return IO.join(allocHandleVar(), index);
+  }
+
+  final void release(long handle) // used if create fails after 'allocHandle'
+  {
+    int index = handleToIndex(handle);
+    Blob b = array[index];
+    if (b == null || b.isDeleted()) markFree(index);
   }
 
   final Blob set(Blob blob) // used after 'allocHandle'
@@ -119,7 +141,7 @@ final class BlobMap
     }
     array[index] = blob;
     cursor = index;
-    if (blob.isActive()) size++;
+    if (blob.isActive()) { size++; markUsed(index); }
     else deletedSize++;
     return old;
   }
@@ -129,32 +151,129 @@ final class BlobMap
     int index = handleToIndex(blob.handle);
     if (array[index] != blob || !blob.isDeleted()) throw Store.err(blob.toStr());
     if (index < cursor) cursor = index;
+    markFree(index);
     size--;
     deletedSize++;
   }
 
   private int allocHandleVar()
   {
-    int var = rand.nextInt();
-    while (var == 0 || var == -1) var = rand.nextInt();
-    return var;
+    while (true)
+    {
+      varSeq += 0x9e3779b9;
+      int var = mix(varSeq);
+      if (var != 0 && var != -1) return var;
+    }
+  }
+
+  /** Murmur3 32-bit finalizer which is a bijection on int */
+  static int mix(int h)
+  {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
   }
 
   private int allocHandleIndex()
+  {
+    // find lowest free slot walking down from the top level
+    long[][] bits = this.bits;
+    long top = bits[bits.length-1][0];
+    if (top != -1L)
+    {
+      int i = Long.numberOfTrailingZeros(~top);
+      for (int level=bits.length-2; level>=0; --level)
+        i = (i << 6) + Long.numberOfTrailingZeros(~bits[level][i]);
+      return i;
+    }
+
+    // need to grow array
+    int len = array.length;
+    grow(len + 1);
+    return len;
+  }
+
+  /** Set slot bit and propagate up each level that becomes full */
+  private void markUsed(int i)
+  {
+    long[][] bits = this.bits;
+    for (int level=0; level<bits.length; ++level)
+    {
+      long[] words = bits[level];
+      int w = i >>> 6;
+      words[w] |= 1L << (i & 63);
+      if (words[w] != -1L) return;
+      i = w;
+    }
+  }
+
+  /** Clear slot bit and propagate up each level that was full */
+  private void markFree(int i)
+  {
+    long[][] bits = this.bits;
+    for (int level=0; level<bits.length; ++level)
+    {
+      long[] words = bits[level];
+      int w = i >>> 6;
+      boolean wasFull = words[w] == -1L;
+      words[w] &= ~(1L << (i & 63));
+      if (!wasFull) return;
+      i = w;
+    }
+  }
+
+  /**
+   * Rebuild bitmaps for current array; bits past the end are set.  The
+   * first prevCount slots keep their bit from prev, so that slots which
+   * are reserved by allocHandle but not yet set stay used.
+   */
+  private void rebuildBits(long[] prev, int prevCount)
   {
     Blob[] a = this.array;
 
-    // loop from cursor to end
-    for (int i=cursor; i<a.length; ++i)
-      if (a[i] == null || a[i].isDeleted()) return i;
+    // compute number of levels until we get to a single word
+    int numLevels = 1;
+    for (int n = (a.length + 63) >>> 6; n > 1; n = (n + 63) >>> 6) numLevels++;
+    long[][] bits = new long[numLevels][];
 
-    // loop from start to cursor
-    for (int i=0; i<cursor; ++i)
-      if (a[i] == null || a[i].isDeleted()) return i;
+    // level zero from previous bits or active blobs
+    int count = a.length;
+    long[] words = bits[0] = new long[(count + 63) >>> 6];
+    for (int i=0; i<count; ++i)
+    {
+      long mask = 1L << (i & 63);
+      if (i < prevCount)
+      {
+        words[i >>> 6] |= prev[i >>> 6] & mask;
+      }
+      else
+      {
+        Blob b = a[i];
+        if (b != null && b.isActive()) words[i >>> 6] |= mask;
+      }
+    }
+    padBits(words, count);
 
-    // need to grow array
-    grow(a.length + 1);
-    return a.length;
+    // each higher level from which words are full below it
+    for (int level=1; level<numLevels; ++level)
+    {
+      long[] below = bits[level-1];
+      count = below.length;
+      words = bits[level] = new long[(count + 63) >>> 6];
+      for (int i=0; i<count; ++i)
+        if (below[i] == -1L) words[i >>> 6] |= 1L << (i & 63);
+      padBits(words, count);
+    }
+
+    this.bits = bits;
+  }
+
+  private static void padBits(long[] words, int count)
+  {
+    for (int i=count; i<words.length*64; ++i) words[i >>> 6] |= 1L << (i & 63);
   }
 
   private void grow(int newMinSize)
@@ -167,6 +286,7 @@ final class BlobMap
     Blob[] temp = new Blob[newSize];
     System.arraycopy(a, 0, temp, 0, a.length);
     this.array = temp;
+    rebuildBits(bits[0], a.length);
   }
 
   static int handleToIndex(long handle)
@@ -174,17 +294,6 @@ final class BlobMap
     return IO.lo4(handle);
   }
 
-  Blob[] snapshot()
-  {
-    Blob[] copy = new Blob[array.length];
-    for (int i=0; i<copy.length; ++i)
-    {
-      Blob b = array[i];
-      if (b != null) copy[i] = b.snapshot();
-    }
-    return copy;
-  }
-
   Blob[] cloneArray()
   {
     Blob[] temp = new Blob[array.length];
@@ -193,8 +302,9 @@ final class BlobMap
   }
 
   private final int max;
-  private final SecureRandom rand = new SecureRandom();
   private Blob[] array;
+  private long[][] bits;     // free slot bitmaps (level zero is per slot)
+  private int varSeq;        // Weyl sequence for handle high 4 bytes
   private int size;
   private int deletedSize;
   private int cursor;
@@ -0,0 +1,157 @@
+//
+// Copyright (c) 2026, SkyFoundry LLC
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   19 Oct 2026  Creation
+//
+
+package fan.hxStore;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32C;
+import fan.sys.*;
+
+/**
+ * BlobOutputStream streams new data for a blob.  Data is buffered into a
+ * single chunk which grows up to the max page size, and each time the full
+ * chunk fills up it is written to a newly allocated extent page.  Callers
+ * can encode directly into this stream which then serves as the page buffer
+ * so small blobs never need a separately materialized Buf.  Nothing is visible until close: if all the
+ * data fits into one page we do a normal page write, otherwise we commit
+ * the extent table.  Pages written for a stream which is never closed are
+ * not referenced by the index, so they are reclaimed on the next open.
+ */
+final class BlobOutputStream extends OutputStream
+{
+  BlobOutputStream(Blob blob, Buf meta)
+  {
+    this.blob  = blob;
+    this.store = blob.store;
+    this.meta  = meta == null ? null : BlobMeta.fromBuf(meta);
+    this.chunk = new byte[initChunkSize];
+  }
+
+  public void write(int b) throws IOException
+  {
+    if (chunkSize >= chunk.length) grow(chunkSize + 1);
+    chunk[chunkSize++] = (byte)b;
+  }
+
+  public void write(byte[] buf, int off, int len) throws IOException
+  {
+    while (len > 0)
+    {
+      if (chunkSize >= chunk.length) grow(chunkSize + len);
+      int n = Math.min(len, chunk.length - chunkSize);
+      System.arraycopy(buf, off, chunk, chunkSize, n);
+      chunkSize += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  public void close() throws IOException
+  {
+    if (closed) return;
+    closed = true;
+    try
+    {
+      // if everything fit into one page, then just do a normal write
+      if (numExtents == 0)
+      {
+        MemBuf data = new MemBuf(chunk, chunkSize);
+        synchronized (blob)
+        {
+          blob.checkWrite();
+          blob.doWrite(meta == null ? null : metaBuf(), data, -1L);
+        }
+        return;
+      }
+
+      // flush last partial chunk and commit extent chain
+      if (chunkSize > 0) writeExtent();
+      int[] ext = new int[numExtents * 3];
+      System.arraycopy(extents, 0, ext, 0, ext.length);
+      blob.writeExtents(meta, ext, total, (int)crc.getValue());
+    }
+    catch (RuntimeException e)
+    {
+      abort();
+      throw e;
+    }
+    catch (IOException e)
+    {
+      abort();
+      throw e;
+    }
+  }
+
+  /** Grow chunk until it is a full page, then flush it as an extent */
+  private void grow(int needed) throws IOException
+  {
+    if (chunk.length >= Store.maxPageSize) { writeExtent(); return; }
+    byte[] temp = new byte[Blob.growCapacity(chunk.length, Math.min(needed, Store.maxPageSize))];
+    System.arraycopy(chunk, 0, temp, 0, chunkSize);
+    chunk = temp;
+  }
+
+  /** Write current chunk to its own best fit extent page */
+  private void writeExtent() throws IOException
+  {
+    total += chunkSize;
+    if (total > Store.maxBlobSize) throw Store.err("Data size exceeds limit: " + total + " > 2GB");
+    if (numExtents >= Extents.maxExtents) throw Store.err("Too many extents: " + numExtents);
+
+    long loc = store.pages.alloc(chunkSize);
+    int fileId = IO.hi4(loc);
+    int pageId = IO.lo4(loc);
+    addExtent(fileId, pageId, chunkSize);
+    if (store.testDiskFull) throw new IOException("Disk full test");
+    store.pages.file(fileId).write(pageId, chunk, 0, chunkSize);
+    crc.update(chunk, 0, chunkSize);
+    chunkSize = 0;
+  }
+
+  private void addExtent(int fileId, int pageId, int size)
+  {
+    int i = numExtents * 3;
+    if (i + 3 > extents.length)
+    {
+      int[] temp = new int[extents.length * 2];
+      System.arraycopy(extents, 0, temp, 0, extents.length);
+      extents = temp;
+    }
+    extents[i]   = fileId;
+    extents[i+1] = pageId;
+    extents[i+2] = size;
+    numExtents++;
+  }
+
+  /** Free any extent pages we have written */
+  private void abort()
+  {
+    for (int i=0; i<numExtents; ++i)
+      store.pages.free(extents[i*3], extents[i*3+1]);
+    numExtents = 0;
+  }
+
+  private Buf metaBuf()
+  {
+    return new MemBuf(meta.buf, meta.buf.length);
+  }
+
+  static final int initChunkSize = 1024;
+
+  private final Blob blob;
+  private final Store store;
+  private final BlobMeta meta;
+  private byte[] chunk;
+  private final CRC32C crc = new CRC32C();
+  private int[] extents = new int[24];
+  private int numExtents;
+  private int chunkSize;
+  private long total;
+  private boolean closed;
+}
@@ -0,0 +1,82 @@
+//
+// Copyright (c) 2026, SkyFoundry LLC
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   19 Oct 2026  Creation
+//
+
+package fan.hxStore;
+
+import java.io.IOException;
+import fan.sys.*;
+
+/**
+ * Extents encodes the extent table page for blobs with more than
+ * maxPageSize of data.  In memory an extent table is modeled as a
+ * flat int[] of fileId/pageId/size triples.  Table page layout:
+ *
+ *   00: u4  number of extents
+ *   04: extents
+ *        u4  fileId
+ *        u2  pageId
+ *        u4  size
+ */
+final class Extents
+{
+
+  static final int headerSize = 4;
+  static final int entrySize  = 10;
+  static final int maxExtents = (Store.maxPageSize - headerSize) / entrySize;
+
+  /** Size in bytes of encoded table */
+  static int tableSize(int[] ext)
+  {
+    return headerSize + (ext.length / 3) * entrySize;
+  }
+
+  /** Encode extent triples into table page */
+  static byte[] encode(int[] ext)
+  {
+    int n = ext.length / 3;
+    if (n > maxExtents) throw Store.err("Too many extents: " + n);
+    byte[] buf = new byte[tableSize(ext)];
+    IO.write4(buf, 0, n);
+    for (int i=0; i<n; ++i)
+    {
+      int off = headerSize + i * entrySize;
+      IO.write4(buf, off,   ext[i*3]);
+      IO.write2(buf, off+4, ext[i*3+1]);
+      IO.write4(buf, off+6, ext[i*3+2]);
+    }
+    return buf;
+  }
+
+  /** Decode table page into extent triples */
+  static int[] decode(byte[] buf, int n)
+  {
+    int[] ext = new int[n * 3];
+    for (int i=0; i<n; ++i)
+    {
+      int off = headerSize + i * entrySize;
+      ext[i*3]   = IO.read4(buf, off);
+      ext[i*3+1] = IO.read2(buf, off+4);
+      ext[i*3+2] = IO.read4(buf, off+6);
+    }
+    return ext;
+  }
+
+  /** Read table page for given location */
+  static int[] read(PageMgr pages, int fileId, int pageId) throws IOException
+  {
+    PageMgr.PageFile file = pages.file(fileId);
+    byte[] header = new byte[headerSize];
+    file.read(pageId, header, 0, headerSize);
+    int n = IO.read4(header, 0);
+    if (n < 0 || n > maxExtents) throw Store.err("Invalid extent table: " + fileId + ":" + pageId);
+    byte[] buf = new byte[headerSize + n * entrySize];
+    file.read(pageId, buf, 0, buf.length);
+    return decode(buf, n);
+  }
+
+}
@@ -8,6 +8,7 @@
 
 package fan.hxStore;
 
+import java.util.zip.CRC32C;
 import fan.sys.*;
 
 /**
@@ -98,6 +99,69 @@ final class IO
       buf[i+j] = 0;
   }
 
+//////////////////////////////////////////////////////////////////////////
+// Checksums
+//////////////////////////////////////////////////////////////////////////
+
+  static int crc(byte[] buf, int offset, int len)
+  {
+    CRC32C crc = new CRC32C();
+    crc.update(buf, offset, len);
+    return (int)crc.getValue();
+  }
+
+  /**
+   * Combine crc1 of a first block with crc2 of a second block len2
+   * bytes long into the CRC32C of both blocks concatenated.  This is the
+   * zlib crc32_combine algorithm with the Castagnoli polynomial: we
+   * apply len2 zero bytes to crc1 by repeated squaring of the operator
+   * matrix, so the cost is log(len2) and independent of the first block.
+   */
+  static int crcCombine(int crc1, int crc2, long len2)
+  {
+    if (len2 <= 0) return crc1;
+
+    // odd is the operator for one zero bit
+    int[] even = new int[32];
+    int[] odd  = new int[32];
+    odd[0] = 0x82f63b78;
+    int row = 1;
+    for (int n=1; n<32; ++n) { odd[n] = row; row <<= 1; }
+
+    // even is two zero bits, then odd is four zero bits
+    gf2Square(even, odd);
+    gf2Square(odd, even);
+
+    // apply len2 zero bytes, first square gives one zero byte
+    do
+    {
+      gf2Square(even, odd);
+      if ((len2 & 1) != 0) crc1 = gf2Times(even, crc1);
+      len2 >>= 1;
+      if (len2 == 0) break;
+
+      gf2Square(odd, even);
+      if ((len2 & 1) != 0) crc1 = gf2Times(odd, crc1);
+      len2 >>= 1;
+    }
+    while (len2 != 0);
+
+    return crc1 ^ crc2;
+  }
+
+  private static int gf2Times(int[] mat, int vec)
+  {
+    int sum = 0;
+    for (int i=0; vec != 0; ++i, vec >>>= 1)
+      if ((vec & 1) != 0) sum ^= mat[i];
+    return sum;
+  }
+
+  private static void gf2Square(int[] square, int[] mat)
+  {
+    for (int n=0; n<32; ++n) square[n] = gf2Times(mat, mat[n]);
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // Utils
 //////////////////////////////////////////////////////////////////////////
@@ -9,15 +9,25 @@
 package fan.hxStore;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
 import fan.sys.*;
 
 /**
- * Index stores an entry for each Blob at fixed 56 byte offsets
+ * Index stores an entry for each Blob at fixed 64 byte offsets.
+ *
+ * The Index lock only guards the BlobMap.  Versions are allocated from
+ * an atomic counter, Blob fields are mutated holding the Blob lock, and
+ * entries are encoded into a per-call buffer and written outside of any
+ * global lock so writers to different blobs don't queue behind each
+ * other's fsync.
  */
 final class Index
 {
@@ -37,42 +47,108 @@ final class Index
 
   private static Index read(Store store, java.io.File file) throws IOException
   {
+    // read and verify header to determine entry size for the file format;
+    // the header fields are always within the first 3.0 sized entry
+    StoreMeta meta = new StoreMeta(store.config);
+    byte[] header = new byte[Store.indexEntrySizeV3];
+    DataInputStream hin = new DataInputStream(new FileInputStream(file));
+    try { hin.readFully(header); } finally { hin.close(); }
+    int version = meta.read(header);
+    int fileEntrySize = version == Store.indexVersionV3 ? Store.indexEntrySizeV3 : entrySize;
+
     // compute number of entries to read from file size
-    int numEntries = (int)(file.length() / entrySize) - 1;
+    int numEntries = (int)(file.length() / fileEntrySize) - 1;
 
-    // allocate in-memory map/meta, keep track of max version
-    StoreMeta meta = new StoreMeta(store.config);
+    // allocate in-memory map, keep track of max version
     BlobMap map = new BlobMap(numEntries);
     long maxVer = 0;
 
     DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 4096));
     try
     {
-      // read and verify header entry
-      byte[] buf = new byte[entrySize];
-      in.readFully(buf, 0, entrySize);
-      meta.read(buf);
+      // skip header entry
+      byte[] buf = new byte[fileEntrySize];
+      in.readFully(buf, 0, fileEntrySize);
 
       // read blob entries
       for (int i=0; i<numEntries; ++i)
       {
         // decode blob
-        in.readFully(buf, 0, entrySize);
-        Blob blob = Blob.indexDecode(store, i, buf);
+        in.readFully(buf, 0, fileEntrySize);
+        Blob blob = Blob.indexDecode(store, i, buf, fileEntrySize);
         if (blob == null) continue;
         map.set(blob);
 
         // keep track of max ver and used pages
         if (blob.ver > maxVer) maxVer = blob.ver;
-        if (blob.isActive()) store.pages.file(blob.fileId).freeMap.markUsed(blob.pageId);
+        if (blob.isActive()) markUsed(store, blob);
       }
     }
     finally { in.close(); }
 
+    // upgrade older index formats in place
+    if (version == Store.indexVersionV3) migrateV3(store, file, meta, map, numEntries);
+
     // init store's ver and return Index instance
     return new Index(store, file,meta, map, maxVer);
   }
 
+  /** Mark the data page, and extent pages if applicable, as used */
+  private static void markUsed(Store store, Blob blob) throws IOException
+  {
+    store.pages.file(blob.fileId).freeMap.markUsed(blob.pageId);
+    if (!blob.isExtents()) return;
+    int[] ext = blob.readExtents();
+    for (int i=0; i<ext.length; i+=3)
+      store.pages.file(ext[i]).freeMap.markUsed(ext[i+1]);
+  }
+
+  /**
+   * Rewrite a 3.0 index file into the 4.0 format.  We compute the
+   * checksum of every active blob from its data page, write the new
+   * index to a temp file, and then atomically swap it into place.
+   * The original file is kept as "folio.index.v3".
+   */
+  private static void migrateV3(Store store, java.io.File file, StoreMeta meta, BlobMap map, int numEntries) throws IOException
+  {
+    java.io.File temp = new java.io.File(file.getParentFile(), fileName + ".tmp");
+    java.io.File orig = new java.io.File(file.getParentFile(), fileName + ".v3");
+
+    byte[] data = new byte[Store.maxPageSize];
+    byte[] buf = new byte[entrySize];
+    FileOutputStream fout = new FileOutputStream(temp);
+    BufferedOutputStream out = new BufferedOutputStream(fout, 65536);
+    try
+    {
+      out.write(meta.write());
+      for (int i=0; i<numEntries; ++i)
+      {
+        Blob b = map.getIndex(i, false);
+        if (b == null)
+        {
+          IO.writeZ(buf, 0, entrySize);
+        }
+        else
+        {
+          if (b.isActive())
+          {
+            store.pages.file(b.fileId).read(b.pageId, data, 0, b.size);
+            b.crc = IO.crc(data, 0, b.size);
+            b.flags |= Blob.flagCrc;
+          }
+          b.indexEncode(buf);
+        }
+        out.write(buf, 0, entrySize);
+      }
+      out.flush();
+      fout.getFD().sync();
+    }
+    finally { out.close(); }
+
+    Files.copy(file.toPath(), orig.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
   private static Index create(Store store, java.io.File file) throws IOException
   {
     // init meta from config
@@ -92,7 +168,7 @@ final class Index
     this.meta    = meta;
     this.file    = new StoreFile(store, file);
     this.map     = map.reset();
-    this.curVer  = curVer;
+    this.curVer  = new AtomicLong(curVer);
   }
 
 //////////////////////////////////////////////////////////////////////////
@@ -114,55 +190,80 @@ final class Index
     file.close();
   }
 
-  long curVer() { return curVer; }
+  long curVer() { return curVer.get(); }
 
-  synchronized Blob create(Buf meta, Buf data) throws IOException
+  Blob create(Buf meta, Buf data) throws IOException
   {
-    long handle = map.allocHandle();
+    // reserve the handle's slot, then write the new blob outside my
+    // lock; it isn't visible to anyone else until we add it to the map
+    long handle;
+    synchronized (this) { handle = map.allocHandle(); }
     Blob blob =  new Blob(store, handle, BlobMeta.empty, -1, -1, -1, -1);
-    blob.write(meta, data);
-    Blob old = map.set(blob);
+    try
+    {
+      blob.write(meta, data);
+    }
+    catch (Throwable e)
+    {
+      synchronized (this) { map.release(handle); }
+      throw e;
+    }
+    synchronized (this) { map.set(blob); }
     return blob;
   }
 
-  synchronized void write(Blob b, BlobMeta meta, int size, int fileId, int pageId, long ver) throws IOException
+  void write(Blob b, BlobMeta meta, int size, int fileId, int pageId, int crc, int flags, long ver) throws IOException
   {
     // allocate newVer unless it was passed in from push
     if (ver < 0L) ver = nextVer();
 
-    // mutate Blob fields only within my lock
+    // mutate Blob fields only within Blob lock (held by caller)
     b.ver    = ver;
     b.meta   = meta;
     b.size   = size;
     b.fileId = fileId;
     b.pageId = pageId;
+    b.crc    = crc;
+    b.flags  = flags;
 
     // write to index file
     writeEntry(b);
   }
 
-  synchronized void delete(Blob b, long ver) throws IOException
+  void delete(Blob b, long ver) throws IOException
   {
     // allocate newVer unless it was passed in from push
     if (ver < 0L) ver = nextVer();
 
-    // mutate Blob fields only within my lock
+    // mutate Blob fields only within Blob lock (held by caller)
     // note: we perserve meta and stash
     b.ver    = ver;
     b.size   = -1;
     b.fileId = -1;
     b.pageId = -1;
+    b.flags  = 0;
 
-    // update map within my lock
-    map.free(b);
-
-    // write empty entry to index file
+    // write empty entry to index file before we free the slot
+    // in the map, otherwise a create could reuse it and have its
+    // entry clobbered by ours
     writeEntry(b);
+
+    // update map within my lock
+    synchronized (this) { map.free(b); }
   }
 
-  synchronized Blob[] snapshot()
+  Blob[] snapshot()
   {
-    return map.snapshot();
+    // copy the array within my lock, then copy each blob within its
+    // own lock since that is where its fields are mutated
+    Blob[] array;
+    synchronized (this) { array = map.cloneArray(); }
+    for (int i=0; i<array.length; ++i)
+    {
+      Blob b = array[i];
+      if (b != null) synchronized (b) { array[i] = b.snapshot(); }
+    }
+    return array;
   }
 
 //////////////////////////////////////////////////////////////////////////
@@ -173,13 +274,14 @@ final class Index
 
   private long nextVer()
   {
-    long ver = ++curVer;
+    long ver = curVer.incrementAndGet();
     if (ver <= 0L) throw Store.err("Ver rolled over");
     return ver;
   }
 
   private void writeEntry(Blob b) throws IOException
   {
+    byte[] entryBuf = new byte[entrySize];
     b.indexEncode(entryBuf);
     file.write(blobToPos(b), entryBuf, 0, entrySize);
   }
@@ -200,6 +302,5 @@ final class Index
   final StoreFile file;
   final BlobMap map;
   final StoreMeta meta;
-  private byte[] entryBuf = new byte[entrySize];
-  private long curVer;
+  private final AtomicLong curVer;
 }
\ No newline at end of file
@@ -375,20 +375,31 @@ public class PageMgr
       this.freeMap  = new FreeMap(Store.pagesPerFile);
     }
 
-    synchronized void read(int pageId, byte[] buf, int offset, int size) throws IOException
+    void read(int pageId, byte[] buf, int offset, int size) throws IOException
     {
       file.read(pagePos(pageId), buf, offset, size);
     }
 
-    synchronized void write(int pageId, byte[] buf, int offset, int size) throws IOException
+    void read(int pageId, int pageOffset, byte[] buf, int offset, int size) throws IOException
+    {
+      if (pageOffset + size > pageSize) throw err("Invalid read: " + pageOffset + " + " + size + " > " + pageSize);
+      file.read(pagePos(pageId)+pageOffset, buf, offset, size);
+    }
+
+    void write(int pageId, byte[] buf, int offset, int size) throws IOException
     {
       file.write(pagePos(pageId), buf, offset, size);
     }
 
-    synchronized void append(int pageId, int offset, byte[] buf, int size) throws IOException
+    void append(int pageId, int offset, byte[] buf, int size) throws IOException
+    {
+      append(pageId, offset, buf, 0, size);
+    }
+
+    void append(int pageId, int offset, byte[] buf, int bufOffset, int size) throws IOException
     {
       if (offset + size > pageSize) throw err("Invalid append: " + offset + " + " + size + " > " + pageSize);
-      file.write(pagePos(pageId)+offset, buf, 0, size);
+      file.write(pagePos(pageId)+offset, buf, bufOffset, size);
     }
 
     long pagePos(int pageId) { return (long)pageId * (long)pageSize; }
@@ -0,0 +1,236 @@
+//
+// Copyright (c) 2026, SkyFoundry LLC
+// Licensed under the Academic Free License version 3.0
+//
+// History:
+//   19 Oct 2026  Creation
+//
+
+package fan.hxStore;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import fan.sys.*;
+import fan.concurrent.*;
+
+/**
+ * ScrubMonitor runs a background integrity check of all data pages.
+ *
+ * We take a snapshot of the index and sort the active blobs by their
+ * fileId/pageId so that each page file is read sequentially.  We never
+ * trust the snapshot location though: each blob is re-checked against
+ * the live Blob while holding its lock, so concurrent writes and frees
+ * cannot cause false positives and we never need a GC freeze.
+ */
+public final class ScrubMonitor extends FanObj
+{
+
+//////////////////////////////////////////////////////////////////////////
+// Constructor
+//////////////////////////////////////////////////////////////////////////
+
+  ScrubMonitor(Store store, Map opts)
+  {
+    this.store     = store;
+    this.opts      = (Map)opts.toImmutable();
+    this.rate      = Opts.getInt(this.opts, "rate", defRate);
+    this.buf       = new byte[Store.maxPageSize];
+    this.bad       = List.make(Blob.typeof$(), 8);
+    this.startTime = DateTime.now();
+    this.future    = Future.makeCompletable();
+    if (rate <= 0) throw ArgErr.make("Invalid rate: " + rate);
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Fantom API
+//////////////////////////////////////////////////////////////////////////
+
+  public final Type typeof() { return typeof; }
+
+  public static Type typeof$() { return typeof; }
+  private static final Type typeof = Type.find("hxStore::ScrubMonitor");
+
+  public final Store store() { return store; }
+
+  public final Future future() { return future; }
+
+  public final synchronized boolean isComplete() { return isComplete; }
+
+  public final synchronized long progress() { return progress; }
+
+  public final synchronized long numScanned() { return numScanned; }
+
+  public final synchronized long bytesScanned() { return bytesScanned; }
+
+  public final synchronized List badBlobs() { return (List)bad.dup().toImmutable(); }
+
+  public final synchronized DateTime startTime() { return startTime; }
+
+  public final synchronized DateTime endTime() { return endTime; }
+
+  public final synchronized Err err() { return err; }
+
+  public final void cancel() { cancelled = true; }
+
+  public final synchronized void onComplete(Func f) { onComplete = f; }
+
+//////////////////////////////////////////////////////////////////////////
+// Spawn
+//////////////////////////////////////////////////////////////////////////
+
+  ScrubMonitor spawn()
+  {
+    Runnable runnable = new Runnable() { public void run() { doRun(); } };
+    Thread thread = new Thread(runnable, "hxStore.scrub");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+    return this;
+  }
+
+  void doRun()
+  {
+    try
+    {
+      Blob[] blobs = sortedSnapshot();
+      long startNanos = System.nanoTime();
+      for (int i=0; i<blobs.length && !cancelled; ++i)
+      {
+        scrubBlob(blobs[i]);
+        synchronized (this) { progress = Math.min(99, 100L * (i+1) / blobs.length); }
+        throttle(startNanos);
+      }
+    }
+    catch (Throwable e)
+    {
+      synchronized (this) { this.err = Err.make(e); }
+    }
+
+    // cleanup
+    store.scrubRef.set(null);
+
+    // update completion fields
+    synchronized (this)
+    {
+      this.isComplete = true;
+      this.progress   = 100;
+      this.endTime    = DateTime.now();
+    }
+
+    invokeOnComplete();
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Steps
+//////////////////////////////////////////////////////////////////////////
+
+  /** Snapshot active blobs sorted by file order */
+  private Blob[] sortedSnapshot()
+  {
+    Blob[] snapshot = store.index.snapshot();
+    int n = 0;
+    for (int i=0; i<snapshot.length; ++i)
+      if (snapshot[i] != null && snapshot[i].isActive()) snapshot[n++] = snapshot[i];
+
+    Blob[] acc = Arrays.copyOf(snapshot, n);
+    Arrays.sort(acc, new Comparator<Blob>()
+    {
+      public int compare(Blob a, Blob b)
+      {
+        if (a.fileId != b.fileId) return a.fileId < b.fileId ? -1 : 1;
+        return a.pageId < b.pageId ? -1 : (a.pageId == b.pageId ? 0 : 1);
+      }
+    });
+    return acc;
+  }
+
+  /** Verify one blob against its live instance while holding its lock */
+  private void scrubBlob(Blob snapshot)
+  {
+    Blob live = store.map.get(snapshot.handle, false);
+    if (live == null) return;
+
+    int size;
+    boolean ok;
+    synchronized (live)
+    {
+      if (live.isDeleted()) return;
+      size = live.size;
+      try
+      {
+        int crc = live.computeCrc(buf);
+        ok = (live.flags & Blob.flagCrc) == 0 || crc == live.crc;
+      }
+      catch (IOException e)
+      {
+        ok = false;
+      }
+    }
+
+    synchronized (this)
+    {
+      numScanned++;
+      bytesScanned += size;
+      if (!ok) bad.add(live);
+    }
+  }
+
+  /** Sleep as needed to keep our read rate under configured bytes/sec */
+  private void throttle(long startNanos) throws InterruptedException
+  {
+    long expected = bytesScanned * 1000000000L / rate;
+    long elapsed = System.nanoTime() - startNanos;
+    long ahead = expected - elapsed;
+    if (ahead > 1000000L) Thread.sleep(ahead / 1000000L);
+  }
+
+  private void invokeOnComplete()
+  {
+    try
+    {
+      if (err != null)
+        future.completeErr(err);
+      else
+        future.complete(opts.get("futureResult", toStr()));
+
+      if (onComplete != null)
+       onComplete.call(this);
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace();
+    }
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Debug
+//////////////////////////////////////////////////////////////////////////
+
+  public String toStr()
+  {
+    return "" + progress + "% => " + numScanned + " scanned, " + bad.sz() + " bad";
+  }
+
+//////////////////////////////////////////////////////////////////////////
+// Fields
+//////////////////////////////////////////////////////////////////////////
+
+  static final int defRate = 4 * 1024 * 1024;  // 4MB/sec
+
+  final Store store;                  // ctor
+  final Map opts;                     // ctor
+  final int rate;                     // ctor (bytes/sec)
+  final byte[] buf;                   // ctor
+  final List bad;                     // ctor (Blob[])
+  final DateTime startTime;           // ctor
+  final Future future;                // ctor
+  volatile boolean cancelled;         // cancel
+  long progress;                      // doRun
+  long numScanned;                    // scrubBlob
+  long bytesScanned;                  // scrubBlob
+  boolean isComplete;                 // doRun
+  DateTime endTime;                   // doRun
+  Err err;                            // doRun
+  Func onComplete;                    // callback
+}
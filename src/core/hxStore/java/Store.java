@@ -49,6 +49,7 @@ public final class Store extends FanObj
     this.dir      = dir;
     this.lockFile = lockFile;
     this.config   = config;
+    this.verifyChecksums = config.verifyChecksums;
     this.pages    = PageMgr.open(this, dir);
     this.index    = Index.open(this, dir, config);
     this.meta     = index.meta;
@@ -186,6 +187,21 @@ public final class Store extends FanObj
 
   public final void deletedEach(Func f) { map.deletedEach(f); }
 
+  public final ScrubMonitor curScrub() { return (ScrubMonitor)scrubRef.get(); }
+
+  public final ScrubMonitor scrub() { return scrub(null); }
+  public final ScrubMonitor scrub(Map opts)
+  {
+    if (opts == null) opts = Map.make(Sys.StrType, Sys.ObjType);
+
+    checkRead();
+    ScrubMonitor scrub = new ScrubMonitor(this, opts);
+    if (!scrubRef.compareAndSet(null, scrub))
+      throw err("A scrub operation is already in progress");
+    else
+      return scrub.spawn();
+  }
+
 //////////////////////////////////////////////////////////////////////////
 // Utils
 //////////////////////////////////////////////////////////////////////////
@@ -246,10 +262,13 @@ public final class Store extends FanObj
   static final int maxMetaSize = 32;                  // 32 bytes
   static final int minPageSize = 16;                  // 16 bytes min
   static final int maxPageSize = 0x100000;            // 1 MB max
+  static final int maxBlobSize = 0x7fffffff;          // 2 GB max via extents
   static final int pagesPerFile = 0x10000;            // 64K pages in each page file
-  static final int indexEntrySize = 56;               // blob entry in index file
+  static final int indexEntrySize = 64;               // blob entry in index file
+  static final int indexEntrySizeV3 = 56;             // blob entry in 3.0 index file
   static final long indexMagic = 0x666f6c696f53746fL; // "folioSto"
-  static final int indexVersion = 0x0003000;          // version 3.0
+  static final int indexVersion = 0x0004000;          // version 4.0
+  static final int indexVersionV3 = 0x0003000;        // version 3.0 (migrated on open)
 
 //////////////////////////////////////////////////////////////////////////
 // Fields
@@ -266,7 +285,9 @@ public final class Store extends FanObj
   private boolean ro;
   private Func onWriteErr;
   final AtomicReference backupRef = new AtomicReference();
+  final AtomicReference scrubRef = new AtomicReference();
   boolean testDiskFull;
   boolean nosync;
+  final boolean verifyChecksums;
 }
 
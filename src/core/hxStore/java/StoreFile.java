@@ -14,7 +14,12 @@ import java.io.RandomAccessFile;
 import fan.sys.*;
 
 /**
- * StoreFile manages all low level file I/O for both index and page files
+ * StoreFile manages all low level file I/O for both index and page files.
+ *
+ * Seek plus read/write is done within my lock, but the fsync is done
+ * outside of it as a group commit: each write gets a sequence number and
+ * a writer only needs to fsync if no other thread has already synced past
+ * its write.  This lets concurrent writers share one fsync.
  */
 final class StoreFile
 {
@@ -26,7 +31,7 @@ final class StoreFile
     this.fp    = new RandomAccessFile(file, "rw");
   }
 
-  boolean isDirty()
+  synchronized boolean isDirty()
   {
     return isDirty;
   }
@@ -36,7 +41,7 @@ final class StoreFile
     return file.length();
   }
 
-  void read(long pos, byte[] buf, int offset, int size) throws IOException
+  synchronized void read(long pos, byte[] buf, int offset, int size) throws IOException
   {
     fp.seek(pos);
     fp.readFully(buf, offset, size);
@@ -44,20 +49,42 @@ final class StoreFile
 
   void write(long pos, byte[] buf, int offset, int size) throws IOException
   {
-    fp.seek(pos);
-    fp.write(buf, offset, size);
-    if (store.nosync)
-      isDirty = true;
-    else
-      fp.getFD().sync();
+    long seq;
+    synchronized (this)
+    {
+      fp.seek(pos);
+      fp.write(buf, offset, size);
+      seq = ++writeSeq;
+      if (store.nosync) { isDirty = true; return; }
+    }
+    sync(seq);
   }
 
   void flush() throws IOException
   {
-    if (isDirty)
+    long seq;
+    synchronized (this)
     {
-      fp.getFD().sync();
+      if (!isDirty) return;
       isDirty = false;
+      seq = writeSeq;
+    }
+    sync(seq);
+  }
+
+  /** Ensure all writes up to given sequence number are synced to disk */
+  private void sync(long seq) throws IOException
+  {
+    synchronized (syncLock)
+    {
+      // another thread's fsync already covered our write
+      if (syncedSeq >= seq) return;
+
+      // everything written so far is covered by this fsync
+      long target;
+      synchronized (this) { target = writeSeq; }
+      fp.getFD().sync();
+      syncedSeq = target;
     }
   }
 
@@ -69,5 +96,8 @@ final class StoreFile
   private final Store store;
   private final File file;
   private final RandomAccessFile fp;
-  private boolean isDirty;
+  private final Object syncLock = new Object();
+  private boolean isDirty;     // guarded by this
+  private long writeSeq;       // guarded by this
+  private long syncedSeq;      // guarded by syncLock
 }
\ No newline at end of file
@@ -31,18 +31,19 @@ public final class StoreMeta extends FanObj
     return buf;
   }
 
-  /** Read header encoded into entry zero */
-  void read(byte[] buf)
+  /** Read header encoded into entry zero, return index format version */
+  int read(byte[] buf)
   {
     long magic = IO.read8(buf, 0);
     int version = IO.read4(buf, 8);
     long hisPageSize = IO.read8(buf, 12);
 
     if (magic != Store.indexMagic) throw err("Invalid magic 0x" + Long.toHexString(magic));
-    if (version != Store.indexVersion) throw err("Invalid magic 0x" + Integer.toHexString(version));
+    if (version != Store.indexVersion && version != Store.indexVersionV3) throw err("Invalid version 0x" + Integer.toHexString(version));
     if (hisPageSize < 3600000000000L) throw err("Invalid hisPageSize: " + hisPageSize);
 
     this.hisPageSize = Duration.make(hisPageSize);
+    return version;
   }
 
   static Err err(String msg) { return StoreErr.make(msg); }
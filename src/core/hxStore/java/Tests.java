@@ -119,6 +119,20 @@ public final class Tests extends FanObj
     verifyEq(buf[5], 0);
     verifyEq(buf[6], 6);
     verifyEq(buf[7], 7);
+
+    // crc combine matches crc of concatenated blocks
+    java.util.Random rand = new java.util.Random(3);
+    byte[] data = new byte[100000];
+    rand.nextBytes(data);
+    int[] splits = { 0, 1, 7, 100, 4096, 65535, 99999, 100000 };
+    int full = IO.crc(data, 0, data.length);
+    for (int i=0; i<splits.length; ++i)
+    {
+      int n = splits[i];
+      int a = IO.crc(data, 0, n);
+      int b = IO.crc(data, n, data.length - n);
+      verifyEq(IO.crcCombine(a, b, data.length - n), full);
+    }
   }
 
 //////////////////////////////////////////////////////////////////////////
@@ -297,6 +311,146 @@ public final class Tests extends FanObj
       verifyErr(new Code() { void run() { m.allocHandle(); } });
       verifyErr(new Code() { void run() { m.allocHandle(); } });
     }
+
+    // large map which spans multiple bitmap levels
+    final int max = 300000;
+    BlobMap big = new BlobMap(10, max);
+    java.util.HashSet<Integer> vars = new java.util.HashSet<Integer>();
+    for (int i=0; i<max; ++i)
+    {
+      long h = big.allocHandle();
+      verifyEq(BlobMap.handleToIndex(h), i);
+      verify(IO.hi4(h) != 0 && IO.hi4(h) != -1);
+      verify(vars.add(IO.hi4(h)));
+      big.set(new Blob(h));
+    }
+    verifyErr(new Code() { void run() { big.allocHandle(); } });
+    int[] toFree = { 299999, 4095, 4096, 262143, 0, 70000 };
+    for (int i=0; i<toFree.length; ++i)
+    {
+      Blob b = big.getIndex(toFree[i], true);
+      b.size = -1;
+      big.free(b);
+    }
+    java.util.Arrays.sort(toFree);
+    for (int i=0; i<toFree.length; ++i)
+    {
+      long h = big.allocHandle();
+      verifyEq(BlobMap.handleToIndex(h), toFree[i]);
+      big.set(new Blob(h));
+    }
+    verifyEq(big.size(), max);
+    verifyErr(new Code() { void run() { big.allocHandle(); } });
+  }
+
+  void testBlobMapGrow()
+  {
+    // slots which are reserved but not yet set survive a grow
+    BlobMap m = new BlobMap(3, 1000);
+    long[] reserved = new long[32];
+    for (int i=0; i<32; ++i) reserved[i] = m.allocHandle();
+    verifyEq(m.capacity(), 32);
+    long h = m.allocHandle();
+    verifyEq(m.capacity(), 64);
+    verifyEq(BlobMap.handleToIndex(h), 32);
+    long h2 = m.allocHandle();
+    verifyEq(BlobMap.handleToIndex(h2), 33);
+    for (int i=0; i<32; ++i) m.set(new Blob(reserved[i]));
+    m.set(new Blob(h));
+    verifyEq(m.size(), 33);
+
+    // released slot is reused, but a reserved one is not
+    m.release(h2);
+    verifyEq(BlobMap.handleToIndex(m.allocHandle()), 33);
+    verifyEq(BlobMap.handleToIndex(m.allocHandle()), 34);
+
+    // concurrent creates reserving outside the lock like Index.create
+    final BlobMap cm = new BlobMap(3, 10000);
+    final java.util.concurrent.atomic.AtomicReference<Throwable> failed = new java.util.concurrent.atomic.AtomicReference<Throwable>();
+    Thread[] threads = new Thread[8];
+    for (int t=0; t<threads.length; ++t)
+    {
+      threads[t] = new Thread()
+      {
+        public void run()
+        {
+          try
+          {
+            for (int i=0; i<1000; ++i)
+            {
+              long handle;
+              synchronized (cm) { handle = cm.allocHandle(); }
+              Thread.yield();
+              synchronized (cm) { cm.set(new Blob(handle)); }
+            }
+          }
+          catch (Throwable e) { failed.compareAndSet(null, e); }
+        }
+      };
+      threads[t].start();
+    }
+    try { for (int t=0; t<threads.length; ++t) threads[t].join(); }
+    catch (InterruptedException e) { throw err(e.toString()); }
+    if (failed.get() != null) throw err("Concurrent create failed: " + failed.get());
+    verifyEq(cm.size(), 8000);
+    verify(cm.capacity() >= 8000);
+    for (int i=0; i<8000; ++i) verify(cm.getIndex(i, true).isActive());
+  }
+
+  /**
+   * Benchmark create rate for a map with n slots.  We fill the map,
+   * tombstone every other slot, then time re-creating into the holes
+   * and a churn of random delete/create pairs.  Requires a heap large
+   * enough for n Blob instances (roughly 8GB for 100M).
+   */
+  String benchBlobMap(long num)
+  {
+    int n = (int)num;
+    BlobMap m = new BlobMap(n);
+    StringBuilder s = new StringBuilder();
+
+    // fill
+    long t1 = System.nanoTime();
+    for (int i=0; i<n; ++i) m.set(new Blob(m.allocHandle()));
+    long t2 = System.nanoTime();
+    s.append(benchRate("fill", n, t2-t1));
+
+    // tombstone every other slot
+    for (int i=0; i<n; i+=2)
+    {
+      Blob b = m.getIndex(i, true);
+      b.size = -1;
+      m.free(b);
+    }
+
+    // re-create into the holes
+    int holes = (n + 1) / 2;
+    t1 = System.nanoTime();
+    for (int i=0; i<holes; ++i) m.set(new Blob(m.allocHandle()));
+    t2 = System.nanoTime();
+    s.append(benchRate("refill", holes, t2-t1));
+
+    // churn random delete/create pairs on a full map
+    int churn = Math.min(n, 10000000);
+    java.util.Random rand = new java.util.Random(7);
+    t1 = System.nanoTime();
+    for (int i=0; i<churn; ++i)
+    {
+      Blob b = m.getIndex(rand.nextInt(n), true);
+      b.size = -1;
+      m.free(b);
+      m.set(new Blob(m.allocHandle()));
+    }
+    t2 = System.nanoTime();
+    s.append(benchRate("churn", churn, t2-t1));
+    verifyEq(m.size(), n);
+    return s.toString();
+  }
+
+  String benchRate(String name, long count, long nanos)
+  {
+    long ms = Math.max(nanos / 1000000L, 1L);
+    return name + ": " + count + " creates in " + ms + "ms (" + (count * 1000L / ms) + "/sec)\n";
   }
 
   void verifyAlloc(BlobMap m, Blob[] blobs, int expected)